@@ -0,0 +1,79 @@
+import earth.Earth;
+import earth.Snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+
+/**
+ * Runs the simulation without a display, drawing it on the terminal.
+ * Usage: java Headless width height [carnivores herbivores plants [ticks]]
+ * The viewport follows the COLUMNS and LINES environment variables when
+ * they are set, else it is 80x24.  Most shells don't export them, so run it
+ * as COLUMNS=$COLUMNS LINES=$LINES java Headless ... to fit the terminal.
+ * Frames are drawn from snapshots on their own thread, so drawing never
+ * holds up the simulation.
+ */
+public class Headless {
+    private static final int MAX_FPS = 10;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java Headless width height [carnivores herbivores plants [ticks]]");
+            System.exit(1);
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        int carnivores = args.length > 4 ? Integer.parseInt(args[2]) : width * height / 100;
+        int herbivores = args.length > 4 ? Integer.parseInt(args[3]) : width * height / 30;
+        int plants = args.length > 4 ? Integer.parseInt(args[4]) : width * height / 10;
+        long ticks = args.length > 5 ? Long.parseLong(args[5]) : Long.MAX_VALUE;
+
+        Earth earth = new Earth(width, height);
+        earth.addOrganism(Earth.OrgType.carnivore, carnivores);
+        earth.addOrganism(Earth.OrgType.herbivore, herbivores);
+        earth.addOrganism(Earth.OrgType.plant, plants);
+
+        // Leave the last line for the status
+        TerminalGrid screen = new TerminalGrid(width, height,
+                envInt("COLUMNS", 80), envInt("LINES", 24) - 1, MAX_FPS,
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+        // Start the snapshots from this thread, the one ticking the map
+        earth.getSnapshot().close();
+        Thread renderer = new Thread(() -> {
+            try {
+                while (true) {
+                    try (Snapshot map = earth.getSnapshot()) {
+                        screen.setStatus("Cycle: " + map.getTick() + "  Population: " + map.getPopulation());
+                        screen.updateGrid(map);
+                    }
+                    Thread.sleep(1000 / MAX_FPS);
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        }, "renderer");
+        renderer.setDaemon(true);
+        renderer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            renderer.interrupt();
+            try {
+                renderer.join();
+            } catch (InterruptedException e) {
+                // Exiting anyway
+            }
+            screen.close();
+        }));
+
+        for (long i = 0; i < ticks; i++)
+            earth.tick();
+    }
+
+    private static int envInt(String name, int def) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
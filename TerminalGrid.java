@@ -0,0 +1,185 @@
+import earth.Mappable;
+import earth.Snapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Draws the map on an ANSI terminal using the organisms' toChar() glyphs.
+ * Only the cells that changed since the last frame are rewritten, so the
+ * output of a frame grows with the changes and not with the map.  Maps larger
+ * than the viewport are scaled down, each character then standing for a block
+ * of cells and showing the most notable organism in it.
+ */
+public class TerminalGrid {
+    private static final String ESC = "\u001b[";
+
+    private final OutputStream out;
+    private final int xCount;
+    private final int yCount;
+    private final int blockX;
+    private final int blockY;
+    private final int cols;
+    private final int rows;
+    private final long frameNanos;
+
+    private final char shown[];
+    private boolean started;
+    private long lastFrame;
+    private String status = "";
+    private String shownStatus = "";
+
+    /**
+     * Creates a terminal view of a map.
+     * @param xCount - width of the map
+     * @param yCount - height of the map
+     * @param maxCols - width of the viewport in characters, at least 1 is used
+     * @param maxRows - height of the viewport in characters, at least 1 is used
+     * @param maxFps - maximum frames drawn per second, at least 1 is used
+     * @param out - terminal to draw on
+     */
+    public TerminalGrid(int xCount, int yCount, int maxCols, int maxRows, int maxFps, OutputStream out) {
+        this.out = out;
+        this.xCount = xCount;
+        this.yCount = yCount;
+        maxCols = Math.max(maxCols, 1);
+        maxRows = Math.max(maxRows, 1);
+        maxFps = Math.max(maxFps, 1);
+        blockX = (xCount + maxCols - 1) / maxCols;
+        blockY = (yCount + maxRows - 1) / maxRows;
+        cols = (xCount + blockX - 1) / blockX;
+        rows = (yCount + blockY - 1) / blockY;
+        frameNanos = 1_000_000_000L / maxFps;
+        shown = new char[cols * rows];
+    }
+
+    /**
+     * Checks if enough time went by since the last frame.  Callers should
+     * check this before fetching the map, so that skipped frames cost nothing.
+     * @return true if the next updateGrid() call will draw
+     */
+    public boolean frameDue() {
+        return !started || System.nanoTime() - lastFrame >= frameNanos;
+    }
+
+    /**
+     * Sets the text shown under the map on the next frame.
+     * @param status - one line of text
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * Draws the cells that changed since the last frame, unless the last frame
+     * is too recent.
+     * @param map - the map as returned by Earth.getMap()
+     * @return true if a frame was drawn
+     */
+    public boolean updateGrid(Mappable map[][]) {
+        return draw((x, y) -> map[y][x] == null ? '.' : map[y][x].toChar());
+    }
+
+    /**
+     * Same as updateGrid(Mappable[][]), drawing a snapshot of the map instead.
+     * @param map - the map as returned by Earth.getSnapshot()
+     * @return true if a frame was drawn
+     */
+    public boolean updateGrid(Snapshot map) {
+        return draw(map::toChar);
+    }
+
+    // Glyph of each cell of a map
+    private interface Glyphs {
+        char glyphAt(int x, int y);
+    }
+
+    private boolean draw(Glyphs map) {
+        if (!frameDue())
+            return false;
+        lastFrame = System.nanoTime();
+
+        StringBuilder frame = new StringBuilder();
+        if (!started) {
+            // Clear the screen and hide the cursor
+            frame.append(ESC).append("2J").append(ESC).append("?25l");
+            started = true;
+        }
+        int cursorRow = -1;
+        int cursorCol = -1;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                char glyph = glyphAt(map, col, row);
+                if (shown[row * cols + col] == glyph)
+                    continue;
+                shown[row * cols + col] = glyph;
+                if (row != cursorRow || col != cursorCol)
+                    moveTo(frame, row, col);
+                frame.append(glyph);
+                cursorRow = row;
+                cursorCol = col + 1;
+            }
+        }
+        if (!status.equals(shownStatus)) {
+            moveTo(frame, rows, 0);
+            frame.append(status).append(ESC).append('K');
+            shownStatus = status;
+        }
+        write(frame);
+        return true;
+    }
+
+    /**
+     * Puts the cursor back under the map and shows it again.
+     */
+    public void close() {
+        StringBuilder frame = new StringBuilder();
+        moveTo(frame, rows + 1, 0);
+        frame.append(ESC).append("?25h");
+        write(frame);
+    }
+
+    // Picks the most notable organism of a block of cells
+    private char glyphAt(Glyphs map, int col, int row) {
+        char glyph = '.';
+        int yEnd = Math.min((row + 1) * blockY, yCount);
+        int xEnd = Math.min((col + 1) * blockX, xCount);
+        for (int y = row * blockY; y < yEnd; y++) {
+            for (int x = col * blockX; x < xEnd; x++) {
+                char cell = map.glyphAt(x, y);
+                if (rank(cell) > rank(glyph))
+                    glyph = cell;
+            }
+        }
+        return glyph;
+    }
+
+    // Predators first, then herbivores, then plants
+    private static int rank(char glyph) {
+        switch (glyph) {
+            case '@':
+                return 3;
+            case '&':
+                return 2;
+            case '*':
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static void moveTo(StringBuilder frame, int row, int col) {
+        frame.append(ESC).append(row + 1).append(';').append(col + 1).append('H');
+    }
+
+    private void write(StringBuilder frame) {
+        try {
+            out.write(frame.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
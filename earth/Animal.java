@@ -1,7 +1,9 @@
 package earth;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 abstract class Animal extends Organism {
@@ -13,7 +15,9 @@ abstract class Animal extends Organism {
     private final int minBirthEnergy;
     private final int maxHungryEnergy;
 
-    private byte beenHere[][];
+    // Visits per cell, keyed by position.  Only the visited cells are kept
+    // so that the memory grows with the path and not with the map.
+    private final Map<Long, Integer> beenHere = new HashMap<>();
 
     /**
      * Creates an Animal object.  This is not to be used to create an object.
@@ -34,8 +38,7 @@ abstract class Animal extends Organism {
         nextBirthTick = tick + minBirthTick + 2; // Child Buffer
         this.maxHungryEnergy = maxHungryEnergy;
         // Set the current position
-        beenHere = new byte[earth.getMaxY()][earth.getMaxX()];
-        beenHere[y][x]++;
+        visit(x, y);
     }
 
     /**
@@ -88,7 +91,7 @@ abstract class Animal extends Organism {
             @Override
             public int compare(Mappable a, Mappable b) {
                 // Smallest beenhere first
-                return beenHere[a.getY()][a.getX()] - beenHere[b.getY()][b.getX()];
+                return visits(a) - visits(b);
             }
         });
 
@@ -97,14 +100,16 @@ abstract class Animal extends Organism {
 
             // Checks if empty or edible
             if (pos instanceof Air || canEat((Organism) pos, true)) {
-                // Move over to the location org is in.
-                moveTo(pos);
-                return;
+                // Move over to the location org is in, unless taken meanwhile.
+                if (moveTo(pos))
+                    return;
             }
         }
     }
 
-    private void moveTo(Mappable pos) {
+    private boolean moveTo(Mappable pos) {
+        if (!getEarth().moveOrganism(this, pos))
+            return false;
         if (pos instanceof Air) {
             // moved to an empty spot
             subEnergy(1);
@@ -115,9 +120,17 @@ abstract class Animal extends Organism {
                 // Increase lifespan for this and its offsprings
                 extendExpectancy(new Random().nextInt(2) + 1);
         }
-        getEarth().moveOrganism(this, pos);
         nextMoveTick = getEarth().getTick() + tickMoveEvery;
-        beenHere[pos.getY()][pos.getX()]++;
+        visit(pos.getX(), pos.getY());
+        return true;
+    }
+
+    private void visit(int x, int y) {
+        beenHere.merge((long) y << 32 | x, 1, Integer::sum);
+    }
+
+    private int visits(Mappable pos) {
+        return beenHere.getOrDefault((long) pos.getY() << 32 | pos.getX(), 0);
     }
 
     private void offspring() {
@@ -129,7 +142,7 @@ abstract class Animal extends Organism {
         Collections.sort(neigh,new Comparator<Mappable>() {
             @Override
             public int compare(Mappable a, Mappable b) {
-                return beenHere[b.getY()][b.getX()] - beenHere[a.getY()][a.getX()];
+                return visits(b) - visits(a);
                 // Opposite of that in movement() function
             }
         });
@@ -139,8 +152,9 @@ abstract class Animal extends Organism {
             if (dangerous(pos)) continue;
 
             if (pos instanceof Air) {
-                // There is room for love to happen.
-                getEarth().addOrganism(newAnimal(pos), pos.getX(), pos.getY());
+                // There is room for love to happen, unless taken meanwhile.
+                if (!getEarth().addOrganism(newAnimal(pos), pos.getX(), pos.getY()))
+                    continue;
 
                 // Next birth
                 int tick = getEarth().getTick();
@@ -0,0 +1,42 @@
+package earth;
+
+/**
+ * Storage of the cells of an Earth, indexed as laid out by the Earth.
+ * Writes may come from several threads at once during concurrent ticks.
+ */
+interface Cells {
+    /**
+     * @param i - index of the cell
+     * @return what is on the cell, null if empty
+     */
+    Mappable get(int i);
+
+    /**
+     * Writes a cell unconditionally.  Only to be used on cells no other thread
+     * writes to, or by writers that check the outcome themselves.
+     * @param i - index of the cell
+     * @param org - what to put on the cell, null to empty it
+     */
+    void set(int i, Mappable org);
+
+    /**
+     * Writes a cell if it still holds what the caller expects.
+     * @param i - index of the cell
+     * @param expect - what the cell should hold, null if empty
+     * @param org - what to put on the cell, null to empty it
+     * @return true if the cell was written
+     */
+    boolean compareAndSet(int i, Mappable expect, Mappable org);
+
+    /**
+     * @return the number of cells
+     */
+    int length();
+
+    /**
+     * Tells the storage an organism left the map for good.  Only to be used
+     * while no other thread writes to the map.
+     * @param org - the organism that left
+     */
+    void release(Organism org);
+}
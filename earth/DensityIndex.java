@@ -0,0 +1,178 @@
+package earth;
+
+/**
+ * Per-type occupancy counters of an Earth, kept in step with the map so region
+ * queries don't need to scan it.  Cell counts are kept in 2D Fenwick trees
+ * (O(log x * log y) per update and per rectangle), tile counts in max segment
+ * trees (O(log tiles) per update, and to find the most crowded tile).
+ */
+final class DensityIndex {
+    static final int TILE = 8;
+
+    private static final int TYPES = Earth.OrgType.values().length;
+
+    private final int maxX;
+    private final int maxY;
+    private final int stride;
+    private final int tilesX;
+    private final int tilesY;
+    private final int leaves;    // number of tiles rounded up to a power of two
+
+    private final int tree[][];   // [type][i * stride + j], 1-indexed Fenwick tree
+    // [type][node], the most organisms in a tile under each node of a max
+    // segment tree, with tile ty * tilesX + tx at leaves + tile.  The last
+    // type is any type.  A tile holds at most TILE * TILE organisms.
+    private final byte tiles[][];
+
+    /**
+     * Creates an empty index for a map of the given size.
+     * @param maxX - width of the map
+     * @param maxY - height of the map
+     */
+    DensityIndex(int maxX, int maxY) {
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.stride = maxX + 1;
+        this.tilesX = (maxX + TILE - 1) / TILE;
+        this.tilesY = (maxY + TILE - 1) / TILE;
+        this.leaves = Integer.highestOneBit(Math.max(1, tilesX * tilesY - 1)) << 1;
+        tree = new int[TYPES][stride * (maxY + 1)];
+        tiles = new byte[TYPES + 1][2 * leaves];
+    }
+
+    /**
+     * Fills the index from a full map in O(area).  Only to be used on an empty index.
+     * @param earth - the map to index, read cell by cell
+     */
+    void build(Earth earth) {
+        for (int y = 0; y < maxY; y++) {
+            for (int x = 0; x < maxX; x++) {
+                Mappable org = earth.getOrganism(x, y);
+                if (org == null)
+                    continue;
+                int type = typeOf(org);
+                tree[type][(y + 1) * stride + x + 1]++;
+                tiles[type][leaves + (y / TILE) * tilesX + x / TILE]++;
+                tiles[TYPES][leaves + (y / TILE) * tilesX + x / TILE]++;
+            }
+        }
+        for (byte t[] : tiles)
+            for (int k = leaves - 1; k > 0; k--)
+                t[k] = (byte) Math.max(t[2 * k], t[2 * k + 1]);
+        // Push every node into its parent, rows first then columns
+        for (int t[] : tree) {
+            for (int i = 1; i <= maxY; i++) {
+                for (int j = 1; j <= maxX; j++) {
+                    int parent = j + (j & -j);
+                    if (parent <= maxX)
+                        t[i * stride + parent] += t[i * stride + j];
+                }
+            }
+            for (int i = 1; i <= maxY; i++) {
+                int parent = i + (i & -i);
+                if (parent > maxY)
+                    continue;
+                for (int j = 1; j <= maxX; j++)
+                    t[parent * stride + j] += t[i * stride + j];
+            }
+        }
+    }
+
+    /**
+     * Records an organism appearing at (or, with a negative delta, leaving) a cell.
+     * @param org - organism concerned
+     * @param x - x coordinate
+     * @param y - y coordinate
+     * @param delta - +1 on arrival, -1 on departure
+     */
+    void update(Mappable org, int x, int y, int delta) {
+        int type = typeOf(org);
+        int t[] = tree[type];
+        for (int i = y + 1; i <= maxY; i += i & -i)
+            for (int j = x + 1; j <= maxX; j += j & -j)
+                t[i * stride + j] += delta;
+        int tile = (y / TILE) * tilesX + x / TILE;
+        updateTile(tiles[type], tile, delta);
+        updateTile(tiles[TYPES], tile, delta);
+    }
+
+    private void updateTile(byte t[], int tile, int delta) {
+        int k = leaves + tile;
+        t[k] += delta;
+        for (k >>= 1; k > 0; k >>= 1) {
+            byte max = (byte) Math.max(t[2 * k], t[2 * k + 1]);
+            if (t[k] == max)
+                // The nodes above don't change either
+                break;
+            t[k] = max;
+        }
+    }
+
+    /**
+     * Counts organisms inside a rectangle, bounds included.  The rectangle is
+     * clipped to the map.
+     * @param type - organism type, null for any
+     * @return number of organisms inside the rectangle
+     */
+    int count(Earth.OrgType type, int x0, int y0, int x1, int y1) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, maxX - 1);
+        y1 = Math.min(y1, maxY - 1);
+        if (x0 > x1 || y0 > y1)
+            return 0;
+        if (type != null)
+            return count(tree[type.ordinal()], x0, y0, x1, y1);
+        int sum = 0;
+        for (int t[] : tree)
+            sum += count(t, x0, y0, x1, y1);
+        return sum;
+    }
+
+    /**
+     * Finds the tile holding the most organisms of a type, the first one in
+     * row order on a tie.
+     * @param type - organism type, null for any
+     * @return index of the tile as ty * getTilesX() + tx, -1 if there are no
+     *         such organisms
+     */
+    int mostCrowdedTile(Earth.OrgType type) {
+        byte t[] = tiles[type == null ? TYPES : type.ordinal()];
+        if (t[1] == 0)
+            return -1;
+        // Follow the maximum down, leftmost first
+        int k = 1;
+        while (k < leaves)
+            k = t[2 * k] == t[k] ? 2 * k : 2 * k + 1;
+        return k - leaves;
+    }
+
+    /**
+     * @return the number of tiles in a row
+     */
+    int getTilesX() {
+        return tilesX;
+    }
+
+    private int count(int t[], int x0, int y0, int x1, int y1) {
+        return prefix(t, x1 + 1, y1 + 1) - prefix(t, x0, y1 + 1)
+                - prefix(t, x1 + 1, y0) + prefix(t, x0, y0);
+    }
+
+    // Organisms in [0, x) * [0, y)
+    private int prefix(int t[], int x, int y) {
+        int sum = 0;
+        for (int i = y; i > 0; i -= i & -i)
+            for (int j = x; j > 0; j -= j & -j)
+                sum += t[i * stride + j];
+        return sum;
+    }
+
+    private static int typeOf(Mappable org) {
+        if (org instanceof Herbivore)
+            return Earth.OrgType.herbivore.ordinal();
+        if (org instanceof Carnivore)
+            return Earth.OrgType.carnivore.ordinal();
+        return Earth.OrgType.plant.ordinal();
+    }
+}
@@ -1,21 +1,55 @@
 package earth;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 
 public final class Earth {
 	private int currentTick = 0;
 	
-	private Organism land[][];
+	// Map stored row by row with a one cell border all around, so all
+	// neighbors of a cell are at fixed offsets from it
+	private Cells cells;
+	private int width = 0;
 	private int maxX = 0;
 	private int maxY = 0;
+	private boolean toroidal;
 
-	private Set<Plant> plants = new HashSet<>();
-	private Set<Herbivore> herbivores = new HashSet<>();
-	private Set<Carnivore> carnivores = new HashSet<>();
+	// Offsets of the neighbors from top to bottom, left to right
+	private static final int NEIGHBOR_X[] = { -1, 0, 1, -1, 1, -1, 0, 1 };
+	private static final int NEIGHBOR_Y[] = { -1, -1, -1, 0, 0, 1, 1, 1 };
+	private int neighborOffsets[];
 
-	private Set<Organism> toAdd = new HashSet<>();
+	// Fills the border of a map that doesn't wrap around
+	private static final Mappable WALL = new Air(-1, -1);
+
+	private List<Plant> plants = new ArrayList<>();
+	private List<Herbivore> herbivores = new ArrayList<>();
+	private List<Carnivore> carnivores = new ArrayList<>();
+
+	private Queue<Organism> toAdd = new ConcurrentLinkedQueue<>();
 
 	private int nextPlantSpawn;
 
+	// Built on the first region query, then kept in step with the map
+	private DensityIndex density;
+
+	// The map as of the last tick, for readers on other threads.  Created by
+	// the first getSnapshot() call, no snapshots are taken before.
+	private volatile SnapshotBuffers snapshots;
+
+	// Set while tickConcurrent() runs organisms on several threads
+	private boolean concurrent;
+
+	// Coordinates are shifted right by this for the tick order, see sortKey()
+	private int zShift;
+
+	// Organisms ticked together by one thread in tickConcurrent()
+	private static final int BATCH = 256;
+	// Random cells tried by addOrganism() before looking for empty ones
+	private static final int RANDOM_TRIES = 64;
+
 	public enum OrgType {
 		plant, herbivore, carnivore
 	}
@@ -30,11 +64,101 @@ public final class Earth {
 	 *            - Height of the map
 	 */
 	public Earth(int x, int y) {
+		this(x, y, false);
+	}
+
+	/**
+	 * This initializes the map where plants, herbivores, and carnivores will
+	 * stay, reproduce, and devour one another in.  A toroidal map wraps
+	 * around, making cells on opposite edges neighbors.
+	 * 
+	 * @param x
+	 *            - Width of the map
+	 * @param y
+	 *            - Height of the map
+	 * @param toroidal
+	 *            - true if the edges of the map wrap around
+	 */
+	public Earth(int x, int y, boolean toroidal) {
+		this(x, y, toroidal, new HeapCells(cellCount(x, y)));
+	}
+
+	/**
+	 * This initializes a map whose cells are stored outside of the heap, for
+	 * maps too big for it.  The memory is capped by -XX:MaxDirectMemorySize.
+	 * 
+	 * @param x
+	 *            - Width of the map
+	 * @param y
+	 *            - Height of the map
+	 * @param toroidal
+	 *            - true if the edges of the map wrap around
+	 * @param offHeap
+	 *            - true to store the cells outside of the heap
+	 */
+	public Earth(int x, int y, boolean toroidal, boolean offHeap) {
+		this(x, y, toroidal, offHeap ? offHeapCells(x, y) : new HeapCells(cellCount(x, y)));
+	}
+
+	/**
+	 * This initializes a map whose cells are stored in a memory mapped file,
+	 * for maps too big for the memory.  The file is overwritten.
+	 * 
+	 * @param x
+	 *            - Width of the map
+	 * @param y
+	 *            - Height of the map
+	 * @param toroidal
+	 *            - true if the edges of the map wrap around
+	 * @param file
+	 *            - file to keep the cells in
+	 * @throws IOException
+	 *             if the file can't be mapped
+	 */
+	public Earth(int x, int y, boolean toroidal, File file) throws IOException {
+		this(x, y, toroidal, new OffHeapCells(cellCount(x, y), WALL, file));
+	}
+
+	private Earth(int x, int y, boolean toroidal, Cells cells) {
+		if (toroidal && (x < 3 || y < 3))
+			throw new IllegalArgumentException(
+					"A toroidal map needs at least 3x3 cells");
 		// create map
-		land = new Organism[y][x];
 		maxX = x;
 		maxY = y;
+		width = x + 2;
+		this.toroidal = toroidal;
+		this.cells = cells;
+		if (!toroidal) {
+			for (int i = 0; i < width; i++) {
+				cells.set(i, WALL);
+				cells.set(cells.length() - width + i, WALL);
+			}
+			for (int i = width; i < cells.length(); i += width) {
+				cells.set(i - 1, WALL);
+				cells.set(i, WALL);
+			}
+		}
+		neighborOffsets = new int[NEIGHBOR_X.length];
+		for (int k = 0; k < neighborOffsets.length; k++)
+			neighborOffsets[k] = NEIGHBOR_Y[k] * width + NEIGHBOR_X[k];
 		nextPlantSpawn = new Random().nextInt(3) + 4;
+		while ((Math.max(x, y) - 1) >> zShift >= 1 << 16)
+			zShift++;
+	}
+
+	// Number of cells of a map, border included
+	private static int cellCount(int x, int y) {
+		return Math.multiplyExact(x + 2, y + 2);
+	}
+
+	private static Cells offHeapCells(int x, int y) {
+		try {
+			return new OffHeapCells(cellCount(x, y), WALL, null);
+		} catch (IOException e) {
+			// Only mapping a file can fail
+			throw new AssertionError(e);
+		}
 	}
 
 	/**
@@ -42,47 +166,54 @@ public final class Earth {
 	 */
 	public void tick() {
 		// Tick all organisms
-		Iterator<Plant> p = plants.iterator();
-		while (p.hasNext()) {
-			Plant pe = p.next();
-			if (pe.isDead()) {
-				if (land[pe.getY()][pe.getX()] == pe)
-					land[pe.getY()][pe.getX()] = null;
-				p.remove();
-				continue;
-			}
-			pe.tick();
-		}
-		Iterator<Herbivore> h = herbivores.iterator();
-		while (h.hasNext()) {
-			Herbivore he = h.next();
-			if (he.isDead()) {
-				if (land[he.getY()][he.getX()] == he)
-					land[he.getY()][he.getX()] = null;
-				h.remove();
-				continue;
-			}
-			he.tick();
-		}
-		Iterator<Carnivore> c = carnivores.iterator();
-		while (c.hasNext()) {
-			Carnivore ce = c.next();
-			if (ce.isDead()) {
-				if (land[ce.getY()][ce.getX()] == ce)
-					land[ce.getY()][ce.getX()] = null;
-				c.remove();
-				continue;
-			}
-			ce.tick();
+		tickAll(plants);
+		tickAll(herbivores);
+		tickAll(carnivores);
+
+		endTick();
+	}
+
+	/**
+	 * Experimental: same as tick(), but the organisms of each kind are ticked
+	 * concurrently, in batches of neighboring organisms.  Organisms claim
+	 * cells with compare-and-set and try their next choice when they lose,
+	 * and only the organism that claims the cell of a prey gets to eat it.
+	 * Apart from the order organisms act in, the rules are those of tick().
+	 * The region queries index is dropped and rebuilt on the next query.
+	 */
+	public void tickConcurrent() {
+		density = null;
+		concurrent = true;
+		try {
+			tickAllConcurrent(plants);
+			tickAllConcurrent(herbivores);
+			tickAllConcurrent(carnivores);
+		} finally {
+			concurrent = false;
 		}
 
+		endTick();
+	}
+
+	// Adds the newborns to the lists, spawns plants and ends the tick
+	private void endTick() {
+		// First so that the population counts the newborns
+		addNewborns();
+
 		// Add random plants
 		if (getTick() > nextPlantSpawn) {
 			nextPlantSpawn = getTick() + 4 + new Random().nextInt(3);
 			addOrganism(OrgType.plant, 1);
+			addNewborns();
 		}
 
-		// Add organisms to the list
+		currentTick++;
+		if (snapshots != null)
+			snapshots.publish(currentTick);
+	}
+
+	// Add organisms to the list
+	private void addNewborns() {
 		for (Organism org : toAdd) {
 			if (org instanceof Plant) {
 				plants.add((Plant) org);
@@ -98,8 +229,271 @@ public final class Earth {
 			}
 		}
 		toAdd.clear();
+	}
 
-		currentTick++;
+	// tickAll() with the ticking itself spread over threads
+	private <T extends Organism> void tickAllConcurrent(List<T> orgs) {
+		int alive = 0;
+		List<T> removed = new ArrayList<>();
+		for (int i = 0; i < orgs.size(); i++) {
+			T org = orgs.get(i);
+			if (org.isDead()) {
+				setCell(org.getX(), org.getY(), org, null);
+				removed.add(org);
+				continue;
+			}
+			orgs.set(alive++, org);
+		}
+		orgs.subList(alive, orgs.size()).clear();
+		for (T org : removed)
+			cells.release(org);
+
+		long keys[] = new long[alive];
+		IntStream.range(0, (alive + BATCH - 1) / BATCH).parallel().forEach(b -> {
+			int end = Math.min((b + 1) * BATCH, keys.length);
+			for (int i = b * BATCH; i < end; i++) {
+				T org = orgs.get(i);
+				org.tick();
+				keys[i] = sortKey(org, i);
+			}
+		});
+
+		Arrays.sort(keys);
+		List<T> unsorted = new ArrayList<>(orgs);
+		for (int i = 0; i < alive; i++)
+			orgs.set(i, unsorted.get(listPosition(keys[i])));
+	}
+
+	/*
+	 * Organisms are ticked along a Z-order curve over the map rather than in
+	 * creation order, so consecutive organisms read neighboring cells that
+	 * are still in cache.  The order is fixed up at the end of every pass for
+	 * the next one, with keys taken while each organism is at hand.  Plants
+	 * never move and animals move one cell at most, so apart from newborns
+	 * at the end the list is still sorted and the sort runs in close to
+	 * linear time.
+	 */
+	private <T extends Organism> void tickAll(List<T> orgs) {
+		long keys[] = new long[orgs.size()];
+		int alive = 0;
+		for (int i = 0; i < orgs.size(); i++) {
+			T org = orgs.get(i);
+			if (org.isDead()) {
+				setCell(org.getX(), org.getY(), org, null);
+				cells.release(org);
+				continue;
+			}
+			org.tick();
+			// Key and list position in one long
+			keys[alive] = sortKey(org, alive);
+			orgs.set(alive++, org);
+		}
+		orgs.subList(alive, orgs.size()).clear();
+
+		Arrays.sort(keys, 0, alive);
+		List<T> unsorted = new ArrayList<>(orgs);
+		for (int i = 0; i < alive; i++)
+			orgs.set(i, unsorted.get(listPosition(keys[i])));
+	}
+
+	// Z-order of an organism in the high bits, its list position in the low
+	// 31 bits.  Coordinates are cut to 16 bits, on bigger maps by following
+	// the curve over blocks of cells, so the key is never negative.
+	private long sortKey(Organism org, int position) {
+		return zOrder(org.getX() >> zShift, org.getY() >> zShift) << 31 | position;
+	}
+
+	private static int listPosition(long sortKey) {
+		return (int) (sortKey & Integer.MAX_VALUE);
+	}
+
+	// Interleaves the bits of x and y, up to 16 bits each
+	private static long zOrder(int x, int y) {
+		return spreadBits(x) | spreadBits(y) << 1;
+	}
+
+	private static long spreadBits(int v) {
+		long b = v & 0xffffL;
+		b = (b | b << 8) & 0x00ff00ffL;
+		b = (b | b << 4) & 0x0f0f0f0fL;
+		b = (b | b << 2) & 0x33333333L;
+		b = (b | b << 1) & 0x55555555L;
+		return b;
+	}
+
+	/**
+	 * Advances the map by several ticks, same as calling tick() repeatedly.
+	 * Once no animals are left, plants only change when they spread or die,
+	 * so they are only visited then instead of on every tick.  Plants with no
+	 * room to spread sleep until a neighboring plant dies.  The outcome is
+	 * statistically the same as the regular ticks.
+	 * 
+	 * @param ticks
+	 *            - number of ticks to advance
+	 */
+	public void fastForward(int ticks) {
+		int end = currentTick + ticks;
+		while (currentTick < end && !isPlantOnly())
+			tick();
+		if (currentTick >= end)
+			return;
+
+		Random rand = new Random();
+		PriorityQueue<PlantEvent> events = new PriorityQueue<>();
+		Set<Plant> blocked = new HashSet<>();
+		int removed = 0;
+		for (Organism org : toAdd)
+			plants.add((Plant) org);
+		toAdd.clear();
+		for (Plant pe : plants) {
+			if (pe.isDead()) {
+				// Swept on the next tick
+				events.add(new PlantEvent(currentTick, true, pe));
+				continue;
+			}
+			events.add(new PlantEvent(pe.getDeathTick() + 1, true, pe));
+			scheduleSpread(events, pe, currentTick, rand);
+		}
+
+		while (currentTick < end) {
+			PlantEvent event;
+			while ((event = events.peek()) != null && event.tick <= currentTick) {
+				events.poll();
+				Plant pe = event.plant;
+				if (event.removal) {
+					setCell(pe.getX(), pe.getY(), pe, null);
+					cells.release(pe);
+					// Dropped from the list further down
+					pe.kill();
+					removed++;
+					blocked.remove(pe);
+					wakeFiller(events, blocked, pe, rand);
+					continue;
+				}
+				if (pe.spreadNow())
+					scheduleSpread(events, pe, currentTick + 1, rand);
+				else
+					blocked.add(pe);
+				addNewPlants(events, rand);
+			}
+
+			// Drop removed plants once they are a good part of the list, or
+			// when they would make the map look full
+			if (removed > plants.size() / 2
+					|| (removed > 0 && plants.size() >= getMaxPopulation())) {
+				plants.removeIf(Organism::isDead);
+				removed = 0;
+			}
+
+			// Add random plants
+			if (getTick() > nextPlantSpawn) {
+				nextPlantSpawn = getTick() + 4 + new Random().nextInt(3);
+				addOrganism(OrgType.plant, 1);
+				addNewPlants(events, rand);
+			}
+
+			currentTick++;
+		}
+
+		plants.removeIf(Organism::isDead);
+		// Plants past their death tick are corpses until the next sweep
+		for (Plant pe : plants) {
+			if (pe.getDeathTick() < currentTick)
+				pe.kill();
+		}
+		if (snapshots != null)
+			snapshots.publish(currentTick);
+	}
+
+	// True when only plants are left on the map
+	private boolean isPlantOnly() {
+		if (hasAnimals())
+			return false;
+		for (Organism org : toAdd) {
+			if (!(org instanceof Plant))
+				return false;
+		}
+		return true;
+	}
+
+	// Moves plants born this tick to the list and schedules their events
+	private void addNewPlants(PriorityQueue<PlantEvent> events, Random rand) {
+		if (toAdd.isEmpty())
+			return;
+		for (Organism org : toAdd) {
+			Plant pe = (Plant) org;
+			plants.add(pe);
+			events.add(new PlantEvent(pe.getDeathTick() + 1, true, pe));
+			scheduleSpread(events, pe, currentTick + 1, rand);
+		}
+		toAdd.clear();
+	}
+
+	/*
+	 * A blocked plant only has room again once a neighbor is removed.  The
+	 * blocked neighbors flip their spread coin every tick and the first to
+	 * win takes the cell, so the coins are flipped here and only the winner
+	 * is woken up.  Whether they notice on this tick or the next depends on
+	 * their place in the tick order.
+	 */
+	private void wakeFiller(PriorityQueue<PlantEvent> events,
+			Set<Plant> blocked, Plant removed, Random rand) {
+		List<Plant> waiting = new ArrayList<>();
+		for (Mappable pos : getNeighbors(removed)) {
+			if (blocked.contains(pos))
+				waiting.add((Plant) pos);
+		}
+		for (int tick = currentTick; !waiting.isEmpty(); tick++) {
+			List<Plant> winners = new ArrayList<>();
+			Iterator<Plant> w = waiting.iterator();
+			while (w.hasNext()) {
+				Plant pe = w.next();
+				if (pe.getDeathTick() < tick) {
+					w.remove();
+					continue;
+				}
+				if (tick == currentTick && rand.nextBoolean())
+					continue;
+				if (pe.nextSpreadAttempt(tick, rand) == tick)
+					winners.add(pe);
+			}
+			if (!winners.isEmpty()) {
+				// Ties go to whoever comes first in the tick order
+				Plant pe = winners.get(rand.nextInt(winners.size()));
+				blocked.remove(pe);
+				events.add(new PlantEvent(tick, false, pe));
+				return;
+			}
+		}
+	}
+
+	// Queues the next spread attempt of a plant, if it happens before it dies
+	private void scheduleSpread(PriorityQueue<PlantEvent> events, Plant pe,
+			int from, Random rand) {
+		int tick = pe.nextSpreadAttempt(from, rand);
+		if (tick <= pe.getDeathTick())
+			events.add(new PlantEvent(tick, false, pe));
+	}
+
+	// Spread attempt or removal of a plant, used by fastForward()
+	private static final class PlantEvent implements Comparable<PlantEvent> {
+		final int tick;
+		final boolean removal;
+		final Plant plant;
+
+		PlantEvent(int tick, boolean removal, Plant plant) {
+			this.tick = tick;
+			this.removal = removal;
+			this.plant = plant;
+		}
+
+		@Override
+		public int compareTo(PlantEvent o) {
+			if (tick != o.tick)
+				return Integer.compare(tick, o.tick);
+			// Dead plants are swept before the others tick
+			return Boolean.compare(o.removal, removal);
+		}
 	}
 
 	/**
@@ -119,6 +513,21 @@ public final class Earth {
 	public int getPopulation() {
 		return plants.size() + herbivores.size() + carnivores.size();
 	}
+
+	/**
+	 * Returns the population of a type on this map.
+	 * 
+	 * @param type
+	 *            - type of organism as defined in OrgType class
+	 * @return population of that type.
+	 */
+	public int getPopulation(OrgType type) {
+		if (type == OrgType.herbivore)
+			return herbivores.size();
+		if (type == OrgType.carnivore)
+			return carnivores.size();
+		return plants.size();
+	}
 	
 	/**
 	 * Returns the maximum possible population on this map.
@@ -185,9 +594,19 @@ public final class Earth {
 			int y = rand.nextInt(maxY);
 
 			// Test coordinates
+			int tries = 1;
 			while (!addOrganism(organism, x, y)) {
-				x = rand.nextInt(maxX);
-				y = rand.nextInt(maxY);
+				if (tries++ < RANDOM_TRIES) {
+					x = rand.nextInt(maxX);
+					y = rand.nextInt(maxY);
+					continue;
+				}
+				// The map is close to full, look for the empty cells
+				int cell = findEmptyCell(rand);
+				if (cell < 0)
+					return false;
+				x = cell % maxX;
+				y = cell / maxX;
 			}
 			// Fix position
 			organism.setPosition(x, y);
@@ -196,6 +615,18 @@ public final class Earth {
 		return true;
 	}
 
+	// Finds an empty cell, scanning from a random one.  -1 if there is none.
+	private int findEmptyCell(Random rand) {
+		int size = maxX * maxY;
+		int start = rand.nextInt(size);
+		for (int k = 0; k < size; k++) {
+			int cell = (start + k) % size;
+			if (cells.get(index(cell % maxX, cell / maxX)) == null)
+				return cell;
+		}
+		return -1;
+	}
+
 	/**
 	 * Adds a specific organism to the defined coordinate location of the map.
 	 * 
@@ -206,11 +637,13 @@ public final class Earth {
 	 * @param y
 	 *            - y coordinate
 	 * @return true when organism was successfully added.
+	 * @throws IndexOutOfBoundsException
+	 *             if the coordinates are off the map
 	 */
 	public boolean addOrganism(Organism organism, int x, int y) {
+		checkBounds(x, y);
 		// add organism to specific place. If non-empty, skip and return false.
-		if (land[y][x] == null) {
-			land[y][x] = organism;
+		if (setCell(x, y, null, organism)) {
 			addOrgToList(organism);
 			return true;
 		}
@@ -226,90 +659,188 @@ public final class Earth {
 	 *            - y coordinate
 	 * @return an Organism object where the organism resides. If none, returns
 	 *         null.
+	 * @throws IndexOutOfBoundsException
+	 *             if the coordinates are off the map
 	 */
 	public Organism getOrganism(int x, int y) {
+		checkBounds(x, y);
 		// Get organism by coordinate
-		return land[y][x];
+		return (Organism) cells.get(index(x, y));
 	}
 
 	/**
-	 * Moves an organism to the new specified position
+	 * Moves an organism to the new specified position, killing the organism
+	 * there if any.  This fails if the position no longer holds what pos
+	 * shows, or if this organism was eaten while moving.
 	 * 
 	 * @param org
 	 *            - Organism to move
 	 * @param pos
-	 *            - Coordinate of the Mappable interface object
-	 * @return true on success, false on null organism
+	 *            - Coordinate of the Mappable interface object, either
+	 *            the organism to replace or Air for an empty cell
+	 * @return true on success, false if the organism could not move
+	 * @throws IndexOutOfBoundsException
+	 *             if pos is off the map
 	 */
 	public boolean moveOrganism(Organism org, Mappable pos) {
 		int newX = pos.getX();
 		int newY = pos.getY();
+		checkBounds(newX, newY);
+		Organism target = pos instanceof Organism ? (Organism) pos : null;
 
-		// check new pos
-		Organism moveTo = getOrganism(newX, newY);
-		if (moveTo != null)
-			// Kill target organism
-			moveTo.kill(); 
-
-		// Move
-		land[newY][newX] = org;
-		land[org.getY()][org.getX()] = null;
+		// Claim the new position
+		if (!setCell(newX, newY, target, org))
+			return false;
+		// Kill target organism.  Claiming its cell made org the only one to
+		// eat it.  If it already died of age, org eats the corpse.
+		if (target != null)
+			target.kill();
+		// Leave the old position, unless org was eaten in the meantime
+		if (!setCell(org.getX(), org.getY(), org, null)) {
+			setCell(newX, newY, org, null);
+			return false;
+		}
 		org.setPosition(newX, newY);
 		return true;
 	}
 
+	// The border cells are reachable through index(), so public entry points
+	// must not let coordinates past the edges through
+	private void checkBounds(int x, int y) {
+		if (x < 0 || x >= maxX || y < 0 || y >= maxY)
+			throw new IndexOutOfBoundsException(
+					"(" + x + "," + y + ") is off the " + maxX + "x" + maxY + " map");
+	}
+
+	// Position of a cell in the cells array
+	private int index(int x, int y) {
+		return (y + 1) * width + x + 1;
+	}
+
+	// Every write to the map goes through here to keep the density index, the
+	// snapshots and the wrapped border in step.  The cell is only written if
+	// it still holds expect, which is what makes concurrent ticks safe.
+	private boolean setCell(int x, int y, Organism expect, Organism org) {
+		if (!cells.compareAndSet(index(x, y), expect, org))
+			return false;
+		if (toroidal)
+			mirror(x, y);
+		SnapshotBuffers snapshots = this.snapshots;
+		if (concurrent) {
+			if (snapshots != null)
+				snapshots.markConcurrently(x, y);
+			// The density index is rebuilt after concurrent ticks
+			return true;
+		}
+		if (snapshots != null)
+			snapshots.mark(x, y);
+		if (density != null) {
+			if (expect != null)
+				density.update(expect, x, y, -1);
+			if (org != null)
+				density.update(org, x, y, 1);
+		}
+		return true;
+	}
+
+	// Copies an edge cell of a toroidal map to the border on the opposite side
+	private void mirror(int x, int y) {
+		int bx = x == 0 ? maxX : x == maxX - 1 ? -1 : x;
+		int by = y == 0 ? maxY : y == maxY - 1 ? -1 : y;
+		if (bx == x && by == y)
+			return;
+		int i = index(x, y);
+		Mappable org;
+		do {
+			org = cells.get(i);
+			if (bx != x)
+				cells.set(index(bx, y), org);
+			if (by != y)
+				cells.set(index(x, by), org);
+			if (bx != x && by != y)
+				cells.set(index(bx, by), org);
+			// In concurrent ticks another thread may have written the cell
+			// meanwhile and had its copy overwritten by ours.  Whichever
+			// copies last sees the cell unchanged.
+		} while (cells.get(i) != org);
+	}
+
 	/**
 	 * Gets a list of neighboring organisms from top to bottom, left to right.
 	 * 
 	 * @return neighboring organisms in a List of Organisms.
+	 * @throws IndexOutOfBoundsException
+	 *             if org is off the map
 	 */
 	public ArrayList<Mappable> getNeighbors(Mappable org) {
 		int x = org.getX();
 		int y = org.getY();
-
-		// Bounds
-		int xb[];
-		int yb[];
-		if (maxX == 1)
-			xb = new int[] { x };
-		else if (x == 0)
-			xb = new int[] { x, x + 1 };
-		else if (x + 1 == maxX)
-			xb = new int[] { x - 1, x };
-		else
-			xb = new int[] { x - 1, x, x + 1 };
-		if (maxY == 1)
-			yb = new int[] { y };
-		else if (y == 0)
-			yb = new int[] { y, y + 1 };
-		else if (y + 1 == maxY)
-			yb = new int[] { y - 1, y };
-		else
-			yb = new int[] { y - 1, y, y + 1 };
+		checkBounds(x, y);
+		int i = index(x, y);
 
 		// populate
-		ArrayList<Mappable> neighbors = new ArrayList<>();
-		for (int yt : yb) {
-			for (int xt : xb) {
-				if (yt == y && xt == x)
-					continue;
-				Mappable orgn = getOrganism(xt, yt);
-				if (orgn == null)
-					orgn = new Air(xt, yt);
-				neighbors.add(orgn);
-				// this should not go out of bounds.
-			}
+		ArrayList<Mappable> neighbors = new ArrayList<>(neighborOffsets.length);
+		for (int k = 0; k < neighborOffsets.length; k++) {
+			Mappable orgn = cells.get(i + neighborOffsets[k]);
+			if (orgn == WALL)
+				continue;
+			if (orgn == null)
+				orgn = new Air(wrap(x + NEIGHBOR_X[k], maxX),
+						wrap(y + NEIGHBOR_Y[k], maxY));
+			neighbors.add(orgn);
 		}
 
 		return neighbors;
 	}
 
+	// Brings a coordinate one cell off the map back on a toroidal map
+	private static int wrap(int c, int max) {
+		if (c < 0)
+			return c + max;
+		if (c >= max)
+			return c - max;
+		return c;
+	}
+
 	/**
 	 * 
-	 * @return returns the 2d array of the map.  This may contain null variables.
+	 * @return returns a 2d array copy of the map.  This may contain null variables.
+	 *         Only to be called from the thread ticking this map, other
+	 *         threads should use getSnapshot().  The copy is on the heap
+	 *         even for maps that are not, where a snapshot is much smaller.
 	 */
 	public Mappable[][] getMap() {
-		return land;
+		Mappable map[][] = new Mappable[maxY][maxX];
+		for (int y = 0; y < maxY; y++)
+			for (int x = 0; x < maxX; x++)
+				map[y][x] = cells.get(index(x, y));
+		return map;
+	}
+
+	/**
+	 * Gets the map as it was at the end of the last tick.  This never blocks
+	 * and may be called from any thread, even while a tick runs, except for
+	 * the first call.  That one starts taking snapshots, which costs nothing
+	 * before, and must come from the thread ticking this map.  Organisms
+	 * added between ticks show up once the next tick ends.  The snapshot must
+	 * be closed once read so that its memory can be reused.
+	 * 
+	 * @return an immutable view of the map
+	 */
+	public Snapshot getSnapshot() {
+		SnapshotBuffers snapshots = this.snapshots;
+		if (snapshots == null) {
+			snapshots = new SnapshotBuffers(this, cells instanceof OffHeapCells);
+			this.snapshots = snapshots;
+		}
+		return snapshots.acquire();
+	}
+
+	/**
+	 * @return true if the edges of this map wrap around
+	 */
+	public boolean isToroidal() {
+		return toroidal;
 	}
 
 	/**
@@ -318,4 +849,158 @@ public final class Earth {
 	public boolean hasAnimals() {
 		return !(herbivores.isEmpty() && carnivores.isEmpty());
 	}
+
+	/**
+	 * Checks that the map and the organism lists agree: no organism is on
+	 * two cells or on a cell other than its position, every organism on the
+	 * map is still listed, and every live listed organism is on its cell.
+	 * On a toroidal map, the border must also mirror the opposite edges.
+	 * 
+	 * @throws IllegalStateException
+	 *             when the map is inconsistent
+	 */
+	public void checkInvariants() {
+		Set<Organism> listed = Collections.newSetFromMap(new IdentityHashMap<>());
+		listed.addAll(plants);
+		listed.addAll(herbivores);
+		listed.addAll(carnivores);
+		listed.addAll(toAdd);
+		Set<Mappable> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (int y = 0; y < maxY; y++) {
+			for (int x = 0; x < maxX; x++) {
+				Mappable org = cells.get(index(x, y));
+				if (org == null)
+					continue;
+				if (!placed.add(org))
+					throw new IllegalStateException(org + " found twice, again at " + x + "," + y);
+				if (org.getX() != x || org.getY() != y)
+					throw new IllegalStateException(org + " at " + x + "," + y
+							+ " thinks it is at " + org.getX() + "," + org.getY());
+				if (!listed.contains(org))
+					throw new IllegalStateException("Removed " + org + " still at " + x + "," + y);
+			}
+		}
+		for (Organism org : listed) {
+			if (!org.isDead() && !placed.contains(org))
+				throw new IllegalStateException("Live " + org + " missing from "
+						+ org.getX() + "," + org.getY());
+		}
+		if (!toroidal)
+			return;
+		for (int y = -1; y <= maxY; y++) {
+			for (int x = -1; x <= maxX; x++) {
+				if (x >= 0 && x < maxX && y >= 0 && y < maxY)
+					continue;
+				if (cells.get(index(x, y)) != cells.get(index(wrap(x, maxX), wrap(y, maxY))))
+					throw new IllegalStateException("Border at " + x + "," + y
+							+ " differs from its edge cell");
+			}
+		}
+	}
+
+	/**
+	 * Counts the organisms inside a rectangle of the map, bounds included.
+	 * The rectangle is clipped to the map.
+	 * 
+	 * @param type
+	 *            - type of organism as defined in OrgType class, null for any
+	 * @param x0
+	 *            - left x coordinate
+	 * @param y0
+	 *            - top y coordinate
+	 * @param x1
+	 *            - right x coordinate
+	 * @param y1
+	 *            - bottom y coordinate
+	 * @return number of organisms inside the rectangle
+	 */
+	public int countOrganisms(OrgType type, int x0, int y0, int x1, int y1) {
+		return getDensity().count(type, x0, y0, x1, y1);
+	}
+
+	/**
+	 * Counts the organisms within a distance of a coordinate.  On a toroidal
+	 * map the distance is measured around the edges.
+	 * 
+	 * @param type
+	 *            - type of organism as defined in OrgType class, null for any
+	 * @param x
+	 *            - x coordinate of the center
+	 * @param y
+	 *            - y coordinate of the center
+	 * @param radius
+	 *            - maximum euclidean distance from the center
+	 * @return number of organisms inside the circle
+	 */
+	public int countOrganisms(OrgType type, int x, int y, int radius) {
+		DensityIndex index = getDensity();
+		int count = 0;
+		int fromY;
+		int toY;
+		if (toroidal) {
+			// Count every row once
+			fromY = Math.max(-radius, -(maxY - 1) / 2);
+			toY = Math.min(radius, maxY / 2);
+		} else {
+			// Only the rows on the map
+			fromY = Math.max(-radius, -y);
+			toY = Math.min(radius, maxY - 1 - y);
+		}
+		for (int dy = fromY; dy <= toY; dy++) {
+			// Squared in long, as huge radiuses overflow an int
+			long dx2 = (long) radius * radius - (long) dy * dy;
+			// Any wider covers the whole row anyway
+			int dx = (int) Math.min(Math.sqrt(dx2), maxX);
+			if (!toroidal) {
+				count += index.count(type, x - dx, y + dy, x + dx, y + dy);
+				continue;
+			}
+			int row = Math.floorMod(y + dy, maxY);
+			if (2 * dx + 1 >= maxX) {
+				count += index.count(type, 0, row, maxX - 1, row);
+				continue;
+			}
+			int left = Math.floorMod(x - dx, maxX);
+			int right = left + 2 * dx;
+			count += index.count(type, left, row, right, row);
+			if (right >= maxX)
+				count += index.count(type, 0, row, right - maxX, row);
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the most crowded tile of the map.  The map is split in square
+	 * tiles of getTileSize() cells.
+	 * 
+	 * @param type
+	 *            - type of organism as defined in OrgType class, null for any
+	 * @return the top-left position of the tile holding the most organisms,
+	 *         the first one in row order on a tie, or null if there are no
+	 *         such organisms.  Only the coordinates of the returned object
+	 *         are meaningful.
+	 */
+	public Mappable getMostCrowdedTile(OrgType type) {
+		DensityIndex index = getDensity();
+		int tile = index.mostCrowdedTile(type);
+		if (tile < 0)
+			return null;
+		return new Air(tile % index.getTilesX() * DensityIndex.TILE,
+				tile / index.getTilesX() * DensityIndex.TILE);
+	}
+
+	/**
+	 * @return the width and height of the tiles used by getMostCrowdedTile().
+	 */
+	public int getTileSize() {
+		return DensityIndex.TILE;
+	}
+
+	private DensityIndex getDensity() {
+		if (density == null) {
+			density = new DensityIndex(maxX, maxY);
+			density.build(this);
+		}
+		return density;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package earth;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cells kept as references on the heap.
+ */
+final class HeapCells implements Cells {
+    private final AtomicReferenceArray<Mappable> cells;
+
+    /**
+     * Creates empty cells.
+     * @param length - number of cells
+     */
+    HeapCells(int length) {
+        cells = new AtomicReferenceArray<>(length);
+    }
+
+    @Override
+    public Mappable get(int i) {
+        return cells.get(i);
+    }
+
+    @Override
+    public void set(int i, Mappable org) {
+        cells.set(i, org);
+    }
+
+    @Override
+    public boolean compareAndSet(int i, Mappable expect, Mappable org) {
+        return cells.compareAndSet(i, expect, org);
+    }
+
+    @Override
+    public int length() {
+        return cells.length();
+    }
+
+    @Override
+    public void release(Organism org) {
+        // Nothing to forget, the garbage collector takes care of it
+    }
+}
@@ -0,0 +1,175 @@
+package earth;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cells kept outside of the heap, so a big map neither counts against the
+ * heap nor has to be scanned by the garbage collector.  Each cell holds a
+ * 4 byte id, and organisms are looked up by id in a registry that grows with
+ * the population rather than with the map.  The memory is either allocated
+ * directly or mapped from a file, in which case the OS pages it in and out.
+ */
+final class OffHeapCells implements Cells {
+    private static final VarHandle INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int EMPTY = 0;
+    private static final int WALL = 1;
+    private static final int FIRST_ID = 2;
+
+    // Buffers can't go past 2 GB, so the cells are split in pages of 256 MB
+    private static final int PAGE_BITS = 26;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final Mappable wall;
+    private final int length;
+    private final ByteBuffer pages[];
+
+    // Organisms by id, in chunks created as the population grows
+    private final AtomicReferenceArray<Organism[]> registry =
+            new AtomicReferenceArray<>(1 << (31 - CHUNK_BITS));
+    private final AtomicInteger nextId = new AtomicInteger(FIRST_ID);
+    // Released ids.  Taken from any thread, only given back by release().
+    private int freeIds[] = new int[64];
+    private final AtomicInteger freeCount = new AtomicInteger();
+    // Ids of organisms that failed to get on the map, freed on release()
+    private final Queue<Integer> unused = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates empty cells.
+     * @param length - number of cells
+     * @param wall - the border sentinel the Earth stores in cells
+     * @param file - file to map the cells to, null to allocate memory instead
+     * @throws IOException if the file can't be mapped
+     */
+    OffHeapCells(int length, Mappable wall, File file) throws IOException {
+        this.length = length;
+        this.wall = wall;
+        pages = new ByteBuffer[(length + PAGE_MASK) >>> PAGE_BITS];
+        if (file == null) {
+            for (int p = 0; p < pages.length; p++)
+                pages[p] = ByteBuffer.allocateDirect(pageBytes(p));
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Drop whatever the file held, the new length reads as zeros
+            raf.setLength(0);
+            raf.setLength((long) length * Integer.BYTES);
+            FileChannel channel = raf.getChannel();
+            for (int p = 0; p < pages.length; p++)
+                pages[p] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        ((long) p << PAGE_BITS) * Integer.BYTES, pageBytes(p));
+        }
+    }
+
+    @Override
+    public Mappable get(int i) {
+        int id = (int) INT.getVolatile(pages[i >>> PAGE_BITS], (i & PAGE_MASK) * Integer.BYTES);
+        if (id == EMPTY)
+            return null;
+        if (id == WALL)
+            return wall;
+        return registry.get(id >>> CHUNK_BITS)[id & CHUNK_MASK];
+    }
+
+    @Override
+    public void set(int i, Mappable org) {
+        INT.setVolatile(pages[i >>> PAGE_BITS], (i & PAGE_MASK) * Integer.BYTES, idFor(org));
+    }
+
+    @Override
+    public boolean compareAndSet(int i, Mappable expect, Mappable org) {
+        int expectId = expect instanceof Organism ? ((Organism) expect).getCellId() : idFor(expect);
+        if (expectId == EMPTY && expect != null)
+            // Never been on the map, so it can't be on this cell
+            return false;
+        boolean fresh = org instanceof Organism && ((Organism) org).getCellId() == EMPTY;
+        int id = idFor(org);
+        if (INT.compareAndSet(pages[i >>> PAGE_BITS], (i & PAGE_MASK) * Integer.BYTES, expectId, id))
+            return true;
+        if (fresh) {
+            // Didn't make it to the map, don't keep it registered
+            unregister((Organism) org);
+            unused.add(id);
+        }
+        return false;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void release(Organism org) {
+        int id = org.getCellId();
+        if (id != EMPTY) {
+            unregister(org);
+            giveBack(id);
+        }
+        for (Integer unusedId; (unusedId = unused.poll()) != null; )
+            giveBack(unusedId);
+    }
+
+    private void unregister(Organism org) {
+        int id = org.getCellId();
+        registry.get(id >>> CHUNK_BITS)[id & CHUNK_MASK] = null;
+        org.setCellId(EMPTY);
+    }
+
+    private void giveBack(int id) {
+        int n = freeCount.get();
+        if (n == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, n * 2);
+        freeIds[n] = id;
+        freeCount.set(n + 1);
+    }
+
+    // Id to store for something, registering organisms on their first cell
+    private int idFor(Mappable org) {
+        if (org == null)
+            return EMPTY;
+        if (org == wall)
+            return WALL;
+        Organism o = (Organism) org;
+        if (o.getCellId() == EMPTY) {
+            // Only the thread placing a new organism gets here
+            int id = takeId();
+            Organism chunk[] = registry.get(id >>> CHUNK_BITS);
+            if (chunk == null) {
+                registry.compareAndSet(id >>> CHUNK_BITS, null, new Organism[1 << CHUNK_BITS]);
+                chunk = registry.get(id >>> CHUNK_BITS);
+            }
+            chunk[id & CHUNK_MASK] = o;
+            o.setCellId(id);
+        }
+        return o.getCellId();
+    }
+
+    private int takeId() {
+        while (true) {
+            int n = freeCount.get();
+            if (n == 0)
+                return nextId.getAndIncrement();
+            if (freeCount.compareAndSet(n, n - 1))
+                return freeIds[n - 1];
+        }
+    }
+
+    private int pageBytes(int p) {
+        return Math.min(length - (p << PAGE_BITS), 1 << PAGE_BITS) * Integer.BYTES;
+    }
+}
@@ -1,6 +1,17 @@
 package earth;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 abstract class Organism implements Mappable {
+    private static final VarHandle IS_DEAD;
+    static {
+        try {
+            IS_DEAD = MethodHandles.lookup().findVarHandle(Organism.class, "isDead", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final Earth earth;
     private final int birthTick;
 
@@ -9,6 +20,8 @@ abstract class Organism implements Mappable {
     private int energy;
     private int tickExpectancy;
     private boolean isDead;
+    // Id on an off-heap map, see OffHeapCells.  0 while not on one.
+    private int cellId;
 
     /**
      * Creates an Organism object.  This is not to be used to create an object.
@@ -36,6 +49,22 @@ abstract class Organism implements Mappable {
         return false;
     }
 
+    /**
+     *
+     * @return the id of this organism on an off-heap map, 0 if none
+     */
+    final int getCellId() {
+        return cellId;
+    }
+
+    /**
+     * Sets the id of this organism on an off-heap map.
+     * @param cellId - the id, 0 for none
+     */
+    final void setCellId(int cellId) {
+        this.cellId = cellId;
+    }
+
     /**
      *
      * @return the Earth this organism is in.
@@ -124,6 +153,18 @@ abstract class Organism implements Mappable {
         tickExpectancy += n;
     }
 
+    /**
+     * Predicts the tick at which tick() kills the organism of old age, assuming
+     * its energy is left untouched.  Only holds while nothing can eat it.
+     * @return the tick this organism dies at
+     */
+    final int getDeathTick() {
+        // Organisms are first ticked the tick after their birth
+        if (energy < 6)
+            return birthTick + 1;
+        return Math.max(birthTick + 1, tickExpectancy + 1);
+    }
+
     /**
      * Checks if the organism is marked dead (or is corpse)
      * @return the state of this organism
@@ -133,10 +174,12 @@ abstract class Organism implements Mappable {
     }
 
     /**
-     * Sets the kill flag.
+     * Sets the kill flag.  Atomic, so that only one of several organisms
+     * racing to eat this one wins.
+     * @return true if this call killed the organism, false if already dead
      */
-    final void kill() {
-        isDead = true;
+    final boolean kill() {
+        return IS_DEAD.compareAndSet(this, false, true);
     }
 
     @Override
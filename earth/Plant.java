@@ -38,25 +38,48 @@ class Plant extends Organism {
     }
 
     private void spread() {
-        Random rand = new Random();
-        if (nextSpreadTick > getEarth().getTick() || rand.nextInt(5) > 2)
+        if (nextSpreadTick > getEarth().getTick() || new Random().nextInt(5) > 2)
             return;
+        spreadNow();
+    }
 
+    /**
+     * Gets the next tick the plant will try to spread at, as spread() would
+     * decide tick after tick.
+     * @param from - first tick to consider
+     * @param rand - random source
+     * @return the first tick from which spread() lets the plant spread
+     */
+    final int nextSpreadAttempt(int from, Random rand) {
+        int tick = Math.max(from, nextSpreadTick);
+        while (rand.nextInt(5) > 2)
+            tick++;
+        return tick;
+    }
+
+    /**
+     * Spreads to a random empty neighbor, if any, and resets the spread timer.
+     * @return true if the plant spread, false if there was no room
+     */
+    final boolean spreadNow() {
+        Random rand = new Random();
         List<Mappable> neigh = getEarth().getNeighbors(this);
         Collections.shuffle(neigh);
 
         for (Mappable pos : neigh) {
             if (pos instanceof Air) {
-                // There is room for plant to spread.
-                getEarth().addOrganism(
+                // There is room for plant to spread, unless taken meanwhile.
+                if (!getEarth().addOrganism(
                         new Plant(pos.getX(),pos.getY(),getEarth(),
                                 getEnergy() - 2 + rand.nextInt(5),getExpectancy() - 2 + rand.nextInt(5)),
-                        pos.getX(), pos.getY());
+                        pos.getX(), pos.getY()))
+                    continue;
 
                 // Next spread
                 nextSpreadTick = getEarth().getTick() + tickSpreadEvery;
-                break;
+                return true;
             }
         }
+        return false;
     }
 }
@@ -0,0 +1,120 @@
+package earth;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An immutable view of an Earth as it was at the end of a tick.  It can be
+ * read from any thread while the Earth goes on ticking.  Snapshots are
+ * recycled, so each one taken from Earth.getSnapshot() has to be closed once
+ * it is no longer read; a snapshot left open is simply never recycled.
+ */
+public final class Snapshot implements AutoCloseable {
+    private static final Earth.OrgType TYPES[] = Earth.OrgType.values();
+
+    private final SnapshotBuffers.Frame frame;
+    private final int maxX;
+    private final int maxY;
+    // Each reader gets its own Snapshot, so closing twice can't unpin the
+    // frame of another reader
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Opens a pinned frame for one reader.
+     * @param frame - the frame, already pinned for this reader
+     * @param maxX - width of the map
+     * @param maxY - height of the map
+     */
+    Snapshot(SnapshotBuffers.Frame frame, int maxX, int maxY) {
+        this.frame = frame;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * @return the tick the Earth was at when this was taken
+     */
+    public int getTick() {
+        return frame.tick;
+    }
+
+    /**
+     * @return width of the map
+     */
+    public int getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * @return height of the map
+     */
+    public int getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * @param x - x coordinate
+     * @param y - y coordinate
+     * @return type of the organism on the cell, null if empty
+     */
+    public Earth.OrgType getType(int x, int y) {
+        int kind = frame.kinds.get(y * maxX + x);
+        return kind == 0 ? null : TYPES[kind - 1];
+    }
+
+    /**
+     * @param x - x coordinate
+     * @param y - y coordinate
+     * @return the glyph of the organism on the cell, as Mappable.toChar()
+     */
+    public char toChar(int x, int y) {
+        switch (frame.kinds.get(y * maxX + x)) {
+            case 1:
+                return '*';
+            case 2:
+                return '&';
+            case 3:
+                return '@';
+            default:
+                return '.';
+        }
+    }
+
+    /**
+     * @return the population, as Earth.getPopulation() gave at the end of the
+     *         tick.  It also counts organisms eaten during the tick.
+     */
+    public int getPopulation() {
+        int population = 0;
+        for (int count : frame.populations)
+            population += count;
+        return population;
+    }
+
+    /**
+     * @param type - organism type
+     * @return the population of that type, as Earth.getPopulation(type) gave
+     *         at the end of the tick
+     */
+    public int getPopulation(Earth.OrgType type) {
+        return frame.populations[type.ordinal()];
+    }
+
+    /**
+     * Lets the Earth recycle this snapshot.  It must not be read afterwards.
+     * Closing it again does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true))
+            frame.unpin();
+    }
+
+    static byte kindOf(Mappable org) {
+        if (org instanceof Plant)
+            return 1;
+        if (org instanceof Herbivore)
+            return 2;
+        if (org instanceof Carnivore)
+            return 3;
+        return 0;
+    }
+}
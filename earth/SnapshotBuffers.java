@@ -0,0 +1,229 @@
+package earth;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the snapshots of an Earth.  Two buffers take turns: readers see
+ * the last published one while the next is written into the other.  Only the
+ * cells written since a buffer was last published are copied into it, unless
+ * so many changed that copying the whole map is as cheap.  If a reader still
+ * holds the other buffer, it is left to the reader and a new one is made.
+ * The buffers are allocated outside of the heap for maps that are.
+ */
+final class SnapshotBuffers {
+    private final Earth earth;
+    private final int maxX;
+    private final int maxY;
+    private final boolean offHeap;
+
+    private volatile Frame current;
+    private Frame spare;
+
+    // Cells written since the last publish, and in the tick before that
+    private Marks dirty;
+    private Marks prevDirty;
+    // Cells written by each thread during concurrent ticks, merged on publish
+    private final Queue<Marks> threadDirty = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Marks> localDirty;
+
+    /**
+     * Starts with a snapshot of the map as it is now, so this is to be
+     * created by the thread ticking the Earth.
+     * @param earth - the Earth to take snapshots of
+     * @param offHeap - true to keep the buffers outside of the heap
+     */
+    SnapshotBuffers(Earth earth, boolean offHeap) {
+        this.earth = earth;
+        this.offHeap = offHeap;
+        maxX = earth.getMaxX();
+        maxY = earth.getMaxY();
+        // Past this many changes the whole map is copied
+        int maxDirty = Math.max(64, maxX * maxY / 8);
+        dirty = new Marks(maxDirty);
+        prevDirty = new Marks(maxDirty);
+        localDirty = ThreadLocal.withInitial(() -> {
+            Marks marks = new Marks(maxDirty);
+            threadDirty.add(marks);
+            return marks;
+        });
+        ByteBuffer kinds = allocate();
+        copyAll(kinds);
+        current = new Frame(earth.getTick(), kinds, populations());
+    }
+
+    /**
+     * @return the last published snapshot, opened for the caller
+     */
+    Snapshot acquire() {
+        while (true) {
+            Frame frame = current;
+            // Only fails if the frame got recycled since it was read
+            if (frame.pin())
+                return new Snapshot(frame, maxX, maxY);
+        }
+    }
+
+    /**
+     * Records a write to the map.  Only to be called by the ticking thread.
+     * @param x - x coordinate
+     * @param y - y coordinate
+     */
+    void mark(int x, int y) {
+        dirty.add(y * maxX + x);
+    }
+
+    /**
+     * Records a write to the map during a concurrent tick, from any thread.
+     * @param x - x coordinate
+     * @param y - y coordinate
+     */
+    void markConcurrently(int x, int y) {
+        localDirty.get().add(y * maxX + x);
+    }
+
+    /**
+     * Makes the map as it is now the snapshot seen by readers.  Only to be
+     * called by the ticking thread, between ticks.
+     * @param tick - the tick the map is at
+     */
+    void publish(int tick) {
+        for (Marks marks : threadDirty) {
+            dirty.addAll(marks);
+            marks.clear();
+        }
+        Frame front = current;
+        ByteBuffer kinds;
+        if (spare != null && spare.retire()) {
+            // The spare is two publishes behind
+            kinds = spare.kinds;
+            if (dirty.all || prevDirty.all) {
+                copyAll(kinds);
+            } else {
+                copy(kinds, prevDirty);
+                copy(kinds, dirty);
+            }
+        } else {
+            kinds = allocate();
+            kinds.put(0, front.kinds, 0, maxX * maxY);
+            if (dirty.all)
+                copyAll(kinds);
+            else
+                copy(kinds, dirty);
+        }
+        spare = front;
+        current = new Frame(tick, kinds, populations());
+
+        prevDirty.clear();
+        Marks swap = prevDirty;
+        prevDirty = dirty;
+        dirty = swap;
+    }
+
+    private ByteBuffer allocate() {
+        return offHeap ? ByteBuffer.allocateDirect(maxX * maxY) : ByteBuffer.allocate(maxX * maxY);
+    }
+
+    private int[] populations() {
+        int populations[] = new int[Earth.OrgType.values().length];
+        for (Earth.OrgType type : Earth.OrgType.values())
+            populations[type.ordinal()] = earth.getPopulation(type);
+        return populations;
+    }
+
+    private void copy(ByteBuffer kinds, Marks marks) {
+        for (int k = 0; k < marks.count; k++) {
+            int i = marks.cells[k];
+            kinds.put(i, Snapshot.kindOf(earth.getOrganism(i % maxX, i / maxX)));
+        }
+    }
+
+    private void copyAll(ByteBuffer kinds) {
+        for (int y = 0; y < maxY; y++)
+            for (int x = 0; x < maxX; x++)
+                kinds.put(y * maxX + x, Snapshot.kindOf(earth.getOrganism(x, y)));
+    }
+
+    /**
+     * Cells written to, or all of them once there are too many to list.
+     */
+    private static final class Marks {
+        private final int max;
+        int cells[] = new int[64];
+        int count;
+        boolean all;
+
+        Marks(int max) {
+            this.max = max;
+        }
+
+        void add(int cell) {
+            if (all)
+                return;
+            if (count == cells.length) {
+                if (count >= max) {
+                    all = true;
+                    return;
+                }
+                cells = Arrays.copyOf(cells, count * 2);
+            }
+            cells[count++] = cell;
+        }
+
+        void addAll(Marks marks) {
+            if (marks.all)
+                all = true;
+            for (int k = 0; k < marks.count && !all; k++)
+                add(marks.cells[k]);
+        }
+
+        void clear() {
+            count = 0;
+            all = false;
+        }
+    }
+
+    /**
+     * A published map, shared by the snapshots of its readers.
+     */
+    static final class Frame {
+        private static final int RETIRED = -1;
+
+        final int tick;
+        // Type of each cell, row by row: 0 when empty, else OrgType ordinal + 1
+        final ByteBuffer kinds;
+        // Earth.getPopulation(type) per OrgType ordinal
+        final int populations[];
+
+        // Open readers, RETIRED once the buffers are handed back to the Earth
+        private final AtomicInteger pins = new AtomicInteger();
+
+        Frame(int tick, ByteBuffer kinds, int populations[]) {
+            this.tick = tick;
+            this.kinds = kinds;
+            this.populations = populations;
+        }
+
+        // Registers a reader, fails if this was already recycled
+        boolean pin() {
+            while (true) {
+                int n = pins.get();
+                if (n == RETIRED)
+                    return false;
+                if (pins.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        void unpin() {
+            pins.decrementAndGet();
+        }
+
+        // Takes this out of the readers' reach, fails while it is read
+        boolean retire() {
+            return pins.compareAndSet(0, RETIRED);
+        }
+    }
+}